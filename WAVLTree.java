@@ -16,6 +16,12 @@ public class WAVLTree {
 	private int size;
 	private IWAVLNode min;
 	private IWAVLNode max;
+	private SearchCache cache; // null unless enableSearchCache was called
+	// read-only snapshot built by freeze(), dropped on the first write. all null when not frozen.
+	private int[] frozenKeys; // keys in Eytzinger (BFS) order, 1-based: children of slot j are 2j and 2j+1
+	private int[] frozenRank; // in-order index of the key in each Eytzinger slot
+	private IWAVLNode[] frozenNodes; // nodes sorted by key
+	private boolean hashing; // when true every real node keeps the hash of its subtree's entries
 
 	public WAVLTree() {
 		this.root = new WAVLNode();
@@ -41,13 +47,120 @@ public class WAVLTree {
 	 * otherwise, returns null
 	 */
 	public String search(int k) {
-		IWAVLNode node = search(root, k);
-		if (node == null) { // returns a null node (search found nothing)
-			return null;
+		if (frozenKeys != null) {
+			return frozenSearch(k);
+		}
+		IWAVLNode node = cache == null ? null : cache.get(k);
+		if (node == null) {
+			node = search(root, k);
+			if (node == null) { // returns a null node (search found nothing)
+				return null;
+			}
+			if (cache != null) {
+				cache.put(k, node);
+			}
 		}
 		return node.getValue();
 	}
 
+	/**
+	 * public void freeze()
+	 *
+	 * copies the tree into flat arrays for a read-only phase. until the next
+	 * insert or delete, search(int k) descends an Eytzinger (BFS) ordered key
+	 * array with a branch-free loop instead of chasing node pointers, and
+	 * select(int i) is a single array read. the node tree is left as is, so
+	 * the first write just drops the arrays.
+	 *
+	 * only the keys are copied. the snapshot holds the nodes themselves and
+	 * reads info from them, so a value set through a node (setValue) is seen
+	 * by search and select without thawing.
+	 */
+	public void freeze() {
+		int len = size();
+		IWAVLNode[] array = new WAVLNode[len];
+		inOrderTree(root, array, 0);
+		frozenKeys = new int[len + 1];
+		frozenRank = new int[len + 1];
+		frozenNodes = array;
+		fillEytzinger(array, 1, 0);
+	}
+
+	// fills slot j's subtree in order, starting from in-order index next. returns the next unused index.
+	private int fillEytzinger(IWAVLNode[] array, int j, int next) {
+		if (j >= frozenKeys.length) {
+			return next;
+		}
+		next = fillEytzinger(array, 2 * j, next);
+		frozenKeys[j] = array[next].getKey();
+		frozenRank[j] = next;
+		return fillEytzinger(array, 2 * j + 1, next + 1);
+	}
+
+	/**
+	 * public boolean isFrozen()
+	 *
+	 * returns true if reads are currently served from the freeze() snapshot
+	 */
+	public boolean isFrozen() {
+		return frozenKeys != null;
+	}
+
+	// called before every write, the snapshot would go stale
+	private void thaw() {
+		frozenKeys = null;
+		frozenRank = null;
+		frozenNodes = null;
+	}
+
+	private String frozenSearch(int k) {
+		int[] keys = frozenKeys;
+		int n = keys.length - 1;
+		int j = 1;
+		while (j <= n) {
+			j = 2 * j + (keys[j] < k ? 1 : 0);
+		}
+		// undo the trailing right turns and the last left turn, which leaves j at the smallest key >= k
+		j >>>= Integer.numberOfTrailingZeros(~j) + 1;
+		if (j == 0 || keys[j] != k) {
+			return null;
+		}
+		return frozenNodes[frozenRank[j]].getValue();
+	}
+
+	/**
+	 * public void enableSearchCache(int capacity)
+	 *
+	 * puts a bounded cache of up to capacity recently searched keys in front
+	 * of search(int k). entries are evicted in CLOCK order. replaces any
+	 * existing cache (and its counters).
+	 *
+	 * precondition: 0 < capacity <= 2^29
+	 */
+	public void enableSearchCache(int capacity) {
+		this.cache = new SearchCache(capacity);
+	}
+
+	/**
+	 * public void disableSearchCache()
+	 *
+	 * removes the search cache, if there is one.
+	 */
+	public void disableSearchCache() {
+		this.cache = null;
+	}
+
+	/**
+	 * public SearchCache getSearchCache()
+	 *
+	 * Returns the search cache, or null if it is disabled. Only its size and
+	 * hit, miss and eviction counters are public; the tree alone fills and
+	 * invalidates it.
+	 */
+	public SearchCache getSearchCache() {
+		return this.cache;
+	}
+
 	// start search from a certain node
 	public IWAVLNode search(IWAVLNode node, int k) {
 		if (!node.isRealNode()) {
@@ -71,9 +184,10 @@ public class WAVLTree {
 	 * if an item with key k already exists in the tree.
 	 */
 	public int insert(int k, String i) {
-		if (search(k) != null) {
+		if (search(root, k) != null) { // bypass the search cache, a miss here says nothing about hot keys
 			return -1;
 		}
+		thaw();
 		size++; // on this point it's certain an insert will be made, overall size of the tree is updating
 		if (empty()) {
 			this.root = new WAVLNode(k, i);
@@ -89,13 +203,14 @@ public class WAVLTree {
 		if (max.getKey() < k) {
 			max = new_node;
 		}
-		fixSubtreeSize(parent);
+		fixSubtreeSize(parent); // the only size climb of an insert, see shrinkAncestors
 		return rebalance(parent);
 	}
 
 	public void fixSubtreeSize(IWAVLNode node) {
 		while (node.isRealNode()) {
 			node.setSubtreeSize(node.getLeft().getSubtreeSize() + node.getRight().getSubtreeSize() + 1);
+			node.fixSubtreeHash();
 			node = node.getParent();
 		} 
 
@@ -173,7 +288,6 @@ public class WAVLTree {
 				rotateLeft(node);
 			}
 			node.demote();
-			fixSubtreeSize(node.getParent());
 			count = count + 2; // rotate + demote.
 			break;
 		case "insertDoubleRotate": // insert: case 3
@@ -189,24 +303,20 @@ public class WAVLTree {
 			childHeavy.demote();
 			// promote node that was childHeavy's child, now is childHeavy's parents after rotation
 			childHeavy.getParent().promote();
-			fixSubtreeSize(node.getParent());
 			count = count + 5; // (2) double rotate + (3) demote and promote actions
 			break;
 		case "leafRankOne":
 			node.demote();
-			this.fixSubtreeSize(node);
 			count = count + 1 + rebalance(node.getParent());
 			break;
 		case "demote": // delete: case 1
 			node.demote();
-			this.fixSubtreeSize(node);
 			count = count + 1 + rebalance(node.getParent()); // (1) demote + call for re-balance recursively
 			break;
 		case "doubleDemote": // delete: case 2
 			IWAVLNode childToDemote = diff[0] == 1 ? node.getLeft() : node.getRight(); // the child with the diff 1 with his parent, need to be domoted as well 
 			node.demote();
 			childToDemote.demote();
-			this.fixSubtreeSize(node);
 			count = count + 2 + rebalance(node.getParent()); // (2) demotes + call for re-balance recursively
 			break;
 		case "deleteRotate": // delete: case 3
@@ -218,8 +328,6 @@ public class WAVLTree {
 			}
 			node.demote();
 			childToPromote.promote();
-			
-			fixSubtreeSize(node.getParent());
 			count = count + 3 + rebalance(node); // node might be a [2,2] leaf that needs fixing. if not, it's a final action.
 			// (1) demote + (1) promote + (1) rotate 
 			break;
@@ -238,11 +346,9 @@ public class WAVLTree {
 			// the node that used to be the heavyChild's child, that is now it's parent
 			heavyChild.getParent().promote();
 			heavyChild.getParent().promote();
-			this.fixSubtreeSize(node.getParent());
 			count = count + 7; //(2) double rotate + (3) demote + (2) promote 
 			break;
 		case "ok":
-			this.fixSubtreeSize(node);
 			break;
 		default:
 		}
@@ -262,8 +368,8 @@ public class WAVLTree {
 		}
 		node.setLeft(child.getRight());
 		child.setRight(node);
-
-		
+		node.fixSubtreeHash(); // node is child's child now, fix it first
+		child.fixSubtreeHash();
 	}
 
 	public void rotateLeft(IWAVLNode node) {
@@ -279,6 +385,8 @@ public class WAVLTree {
 		}
 		node.setRight(child.getLeft());
 		child.setLeft(node);
+		node.fixSubtreeHash(); // node is child's child now, fix it first
+		child.fixSubtreeHash();
 
 		if (!child.getParent().isRealNode()) {
 			root = child;
@@ -303,12 +411,21 @@ public class WAVLTree {
 		if (node == null) {
 			return -1; // not found - nothing to delete
 		}
+		return deleteNode(node);
+	}
+
+	// deletes a node that is known to be in the tree, without searching for it first
+	private int deleteNode(IWAVLNode node) {
+		thaw();
 		size--;
+		if (cache != null) {
+			cache.remove(node.getKey());
+		}
 		// check if the deleted node is max or min, if so - updated a new min/max
-		if (min.getKey() == k) {
+		if (min == node) {
 			min = min.successor();
 		}
-		if (max.getKey() == k) {
+		if (max == node) {
 			max = max.predecessor();
 		}
 		// if it's a binary node (with 2 kids), swap with successor.
@@ -317,24 +434,39 @@ public class WAVLTree {
 		}
 
 		IWAVLNode nodeForRebalance = removeNode(node);
-		this.fixSubtreeSize(nodeForRebalance);
-		
+		shrinkAncestors(node);
+
 		return rebalance(nodeForRebalance); // returns the parent of the deleted node for re-balancing purposes
 	}
 
+	// the only size climb of a delete: every ancestor of the removed node lost exactly one entry.
+	// rebalance relies on sizes being right already, its rotations only fix the two nodes they move.
+	private void shrinkAncestors(IWAVLNode removed) {
+		IWAVLNode node = removed.getParent();
+		while (node.isRealNode()) {
+			node.setSubtreeSize(node.getSubtreeSize() - 1);
+			node.fixSubtreeHash();
+			node = node.getParent();
+		}
+	}
+
 	public IWAVLNode swapWithSuccessor(IWAVLNode node) {
 		IWAVLNode successor = node.successor();
 		if (!successor.isRealNode()) {
 			return node;
 		}
 
+		// the two nodes trade keys, so cached key -> node entries for both are stale.
+		if (cache != null) {
+			cache.remove(node.getKey());
+			cache.remove(successor.getKey());
+		}
+
 		// switch key and info between node and successor. update max if necessary.
 		int nodeOldKey = node.getKey();
 		String nodeOldValue = node.getValue();
-		node.setKey(successor.getKey());
-		node.setValue(successor.getValue());
-		successor.setKey(nodeOldKey);
-		successor.setValue(nodeOldValue);
+		node.setEntry(successor.getKey(), successor.getValue());
+		successor.setEntry(nodeOldKey, nodeOldValue);
 
 		if (successor == max) {
 			max = node;
@@ -390,6 +522,60 @@ public class WAVLTree {
 		return this.max.getValue();
 	}
 
+	/**
+	 * public String peekMin()
+	 *
+	 * Same as min(), named to pair with pollMin()
+	 */
+	public String peekMin() {
+		return min();
+	}
+
+	/**
+	 * public String peekMax()
+	 *
+	 * Same as max(), named to pair with pollMax()
+	 */
+	public String peekMax() {
+		return max();
+	}
+
+	/**
+	 * public String pollMin()
+	 *
+	 * Removes the item with the smallest key from the tree and returns its
+	 * info, or null if the tree is empty. The cached min is removed directly
+	 * (it never has a left child, so no search or swap is needed) and the new
+	 * min is its successor. the subtree sizes still need one climb to the root,
+	 * rebalancing after it is amortized O(1).
+	 */
+	public String pollMin() {
+		if (this.empty()) {
+			return null;
+		}
+		String info = min.getValue();
+		deleteNode(min);
+		return info;
+	}
+
+	/**
+	 * public String pollMax()
+	 *
+	 * Removes the item with the largest key from the tree and returns its
+	 * info, or null if the tree is empty. The cached max is removed directly
+	 * (it never has a right child, so no search or swap is needed) and the new
+	 * max is its predecessor. the subtree sizes still need one climb to the
+	 * root, rebalancing after it is amortized O(1).
+	 */
+	public String pollMax() {
+		if (this.empty()) {
+			return null;
+		}
+		String info = max.getValue();
+		deleteNode(max);
+		return info;
+	}
+
 	/**
 	 * public int[] keysToArray()
 	 *
@@ -470,6 +656,9 @@ public class WAVLTree {
 		if (this.empty() || i > this.size || i < 0) {
 			return null;
 		}
+		if (frozenNodes != null) {
+			return i == 0 ? null : frozenNodes[i - 1].getValue();
+		}
 		IWAVLNode node = min; 
 		//climbs up until the first node that it's sub tree size is more or equal to the i we're looking.
 		while (node.getSubtreeSize()<i){  
@@ -479,17 +668,652 @@ public class WAVLTree {
 	}
 	
 	public String selectDown (IWAVLNode node, int i){
+		return selectNodeDown(node, i).getValue();
+	}
+
+	// returns the node with the i'th smallest key in node's subtree (i starts at 1)
+	private IWAVLNode selectNodeDown(IWAVLNode node, int i) {
 		int leftAndOne = node.getLeft().getSubtreeSize() + 1;
-		if (leftAndOne == i){
-			return node.getValue();
+		if (leftAndOne == i) {
+			return node;
+		} else if (leftAndOne < i) {
+			return selectNodeDown(node.getRight(), i - leftAndOne);
+		} else { // leftAndOne > i
+			return selectNodeDown(node.getLeft(), i);
 		}
-		else if (leftAndOne < i){
-			return selectDown (node.getRight(), i - leftAndOne);
+	}
+
+	/**
+	 * public void enableSubtreeHashes()
+	 *
+	 * makes every node keep a hash of the (key, info) entries in its subtree,
+	 * computing them for the current tree in O(n). entry hashes are combined
+	 * by addition, so the hash depends only on the contents and not on the
+	 * shape: two replicas with the same entries have the same root hash even
+	 * if they were built in a different order.
+	 */
+	public void enableSubtreeHashes() {
+		hashing = true;
+		fixAllHashes(root);
+	}
+
+	private void fixAllHashes(IWAVLNode node) {
+		if (!node.isRealNode()) {
+			return;
 		}
-		else{ //leftAndOne > i
-			return selectDown (node.getLeft(), i);
-		} 
+		fixAllHashes(node.getLeft());
+		fixAllHashes(node.getRight());
+		node.fixEntryHash();
+		node.fixSubtreeHash();
+	}
+
+	/**
+	 * public void disableSubtreeHashes()
+	 *
+	 * stops maintaining subtree hashes. the stored ones go stale.
+	 */
+	public void disableSubtreeHashes() {
+		hashing = false;
+	}
+
+	/**
+	 * public long getRootHash()
+	 *
+	 * Returns the hash of all entries in the tree (0 if the tree is empty).
+	 *
+	 * precondition: subtree hashes are enabled
+	 */
+	public long getRootHash() {
+		checkHashing();
+		return root.getSubtreeHash();
+	}
+
+	private void checkHashing() {
+		if (!hashing) {
+			throw new IllegalStateException("subtree hashes are not enabled");
+		}
+	}
+
+	// hash of a single (key, info) entry. every char goes through the full 64-bit mix,
+	// String.hashCode() is only 32 bits and collides on short strings ("Aa" and "BB").
+	// the seed packs the key with length + 1 (0 for null). the offset keeps it from ever being
+	// 0, which mix64 would map to 0 and leave the entry out of every sum.
+	public static long entryHash(int key, String info) {
+		long seed = ((long) key << 32) | (info == null ? 0 : info.length() + 1L);
+		long h = mix64(seed + 0x9E3779B97F4A7C15L);
+		if (info != null) {
+			for (int i = 0; i < info.length(); i++) {
+				h = mix64(h + info.charAt(i));
+			}
+		}
+		return h;
+	}
+
+	// the splitmix64 finalizer
+	private static long mix64(long h) {
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	// returns { number of entries, sum of entry hashes } over keys smaller than k, in O(log n)
+	private long[] below(long k) {
+		long count = 0;
+		long hash = 0;
+		IWAVLNode node = root;
+		while (node.isRealNode()) {
+			if (node.getKey() < k) {
+				count += node.getLeft().getSubtreeSize() + 1;
+				hash += node.getLeft().getSubtreeHash() + node.getEntryHash();
+				node = node.getRight();
+			} else {
+				node = node.getLeft();
+			}
+		}
+		return new long[] { count, hash };
+	}
+
+	/**
+	 * public int rangeSize(int lo, int hi)
+	 *
+	 * Returns the number of keys k in the tree with lo <= k <= hi, in O(log n).
+	 */
+	public int rangeSize(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		return (int) (below((long) hi + 1)[0] - below(lo)[0]);
 	}
+
+	/**
+	 * public long rangeHash(int lo, int hi)
+	 *
+	 * Returns the hash of the entries with lo <= key <= hi, in O(log n).
+	 *
+	 * precondition: subtree hashes are enabled
+	 */
+	public long rangeHash(int lo, int hi) {
+		checkHashing();
+		if (lo > hi) {
+			return 0;
+		}
+		return below((long) hi + 1)[1] - below(lo)[1];
+	}
+
+	/**
+	 * public int medianKey(int lo, int hi)
+	 *
+	 * Returns the median key among the keys k with lo <= k <= hi (the upper
+	 * one for an even count, the only one for a count of 1), in O(log n).
+	 *
+	 * precondition: rangeSize(lo, hi) > 0
+	 */
+	public int medianKey(int lo, int hi) {
+		int first = (int) below(lo)[0] + 1;
+		return keyAtRank(first + rangeSize(lo, hi) / 2);
+	}
+
+	/**
+	 * public DiffEntry[] diff(WAVLTree other)
+	 *
+	 * Returns the entries on which this tree and other disagree, sorted by
+	 * key. Same as diff(other.asReplica()).
+	 *
+	 * precondition: subtree hashes are enabled on both trees
+	 */
+	public DiffEntry[] diff(WAVLTree other) {
+		return diff(other.asReplica());
+	}
+
+	/**
+	 * public DiffEntry[] diff(IHashReplica other)
+	 *
+	 * Returns the entries on which this tree and other disagree, sorted by
+	 * key: keys that are in only one of them, or that have different info.
+	 * other is another tree's asReplica() or any replica that answers the
+	 * IHashReplica queries, e.g. a stub forwarding them to a remote node. Key
+	 * ranges whose size and hash match on both sides are skipped, and
+	 * mismatching ranges are split at a median key until they hold at most
+	 * one entry per side, so the work is O(d log^2 n) queries for d
+	 * differences. See hashSummary for a diff without a query per step.
+	 *
+	 * precondition: subtree hashes are enabled on both sides
+	 */
+	public DiffEntry[] diff(IHashReplica other) {
+		checkHashing();
+		List<DiffEntry> entries = new ArrayList<>();
+		diffRange(other, Integer.MIN_VALUE, Integer.MAX_VALUE, entries);
+		return entries.toArray(new DiffEntry[0]);
+	}
+
+	/**
+	 * public IHashReplica asReplica()
+	 *
+	 * Returns this tree as the other side of a diff. A nested interface
+	 * cannot be implemented by its enclosing class, so this is a view that
+	 * forwards to rangeSize, rangeHash, medianKey and search.
+	 */
+	public IHashReplica asReplica() {
+		return new IHashReplica() {
+			public int rangeSize(int lo, int hi) {
+				return WAVLTree.this.rangeSize(lo, hi);
+			}
+
+			public long rangeHash(int lo, int hi) {
+				return WAVLTree.this.rangeHash(lo, hi);
+			}
+
+			public int medianKey(int lo, int hi) {
+				return WAVLTree.this.medianKey(lo, hi);
+			}
+
+			public String search(int k) {
+				return WAVLTree.this.search(k);
+			}
+		};
+	}
+
+	private void diffRange(IHashReplica other, int lo, int hi, List<DiffEntry> entries) {
+		int mine = this.rangeSize(lo, hi);
+		int theirs = other.rangeSize(lo, hi);
+		if (mine == theirs && this.rangeHash(lo, hi) == other.rangeHash(lo, hi)) {
+			return;
+		}
+		if (mine <= 1 && theirs <= 1) {
+			int myKey = mine == 1 ? this.medianKey(lo, hi) : 0;
+			int theirKey = theirs == 1 ? other.medianKey(lo, hi) : 0;
+			if (mine == 1 && theirs == 1 && myKey == theirKey) { // same key, different info
+				entries.add(new DiffEntry(myKey, true, search(root, myKey).getValue(), true, other.search(myKey)));
+				return;
+			}
+			// the keys differ (or one side is empty), each present key is missing on the other side
+			if (mine == 1 && (theirs == 0 || myKey < theirKey)) {
+				entries.add(new DiffEntry(myKey, true, search(root, myKey).getValue(), false, null));
+			}
+			if (theirs == 1) {
+				entries.add(new DiffEntry(theirKey, false, null, true, other.search(theirKey)));
+			}
+			if (mine == 1 && theirs == 1 && myKey > theirKey) {
+				entries.add(new DiffEntry(myKey, true, search(root, myKey).getValue(), false, null));
+			}
+			return;
+		}
+		// split at the median key of the side with more entries, both halves get at least one of them
+		int mid = mine >= theirs ? this.medianKey(lo, hi) : other.medianKey(lo, hi);
+		diffRange(other, lo, mid - 1, entries);
+		diffRange(other, mid, hi, entries);
+	}
+
+	// key of the i'th smallest entry (i starts at 1)
+	private int keyAtRank(int i) {
+		return selectNodeDown(root, i).getKey();
+	}
+
+	/**
+	 * public HashSummary hashSummary(int depth)
+	 *
+	 * Returns the sizes and hashes of a fixed split of the key space, to be
+	 * serialized and sent to another replica that passes it to diffRanges.
+	 * the range from the smallest to the largest key is halved at its
+	 * midpoint down to the given depth, and the other side splits its keys
+	 * at the same bounds, so both describe the same key ranges whatever their
+	 * tree shapes. the summary has up to 2^(depth+1) - 1 ranges; empty ranges
+	 * cost no tree queries.
+	 *
+	 * precondition: subtree hashes are enabled, 0 <= depth <= HashSummary.MAX_DEPTH
+	 */
+	public HashSummary hashSummary(int depth) {
+		checkHashing();
+		if (empty()) {
+			return new HashSummary(depth, 1, 0);
+		}
+		HashSummary summary = new HashSummary(depth, min.getKey(), max.getKey());
+		summarize(summary, 1, summary.lo, summary.hi);
+		return summary;
+	}
+
+	private void summarize(HashSummary summary, int slot, int lo, int hi) {
+		int count = rangeSize(lo, hi);
+		if (count == 0) {
+			return; // this range and all of its halves stay 0
+		}
+		summary.sizes[slot] = count;
+		summary.hashes[slot] = rangeHash(lo, hi);
+		if (2 * slot < summary.sizes.length && lo < hi) {
+			int mid = HashSummary.mid(lo, hi);
+			summarize(summary, 2 * slot, lo, mid);
+			summarize(summary, 2 * slot + 1, mid + 1, hi);
+		}
+	}
+
+	/**
+	 * public int[] diffRanges(HashSummary other)
+	 *
+	 * Returns the key ranges on which this tree may disagree with the
+	 * replica that produced other, as { lo0, hi0, lo1, hi1, ... } sorted and
+	 * with adjacent ranges merged (bounds inclusive). only ranges whose size
+	 * or hash differ are descended into, and a range that is empty on one
+	 * side is returned whole. every differing entry lies in a returned range;
+	 * keysInRange lists the ones to send back for an incremental sync.
+	 *
+	 * precondition: subtree hashes are enabled
+	 */
+	public int[] diffRanges(HashSummary other) {
+		checkHashing();
+		List<Integer> ranges = new ArrayList<>();
+		if (other.lo > other.hi) { // the other replica is empty
+			if (!empty()) {
+				addRange(ranges, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			}
+		} else {
+			// all of this tree's keys outside the other replica's [min, max] are differences
+			if (other.lo > Integer.MIN_VALUE && rangeSize(Integer.MIN_VALUE, other.lo - 1) > 0) {
+				addRange(ranges, Integer.MIN_VALUE, other.lo - 1);
+			}
+			diffSummaryRange(other, 1, other.lo, other.hi, ranges);
+			if (other.hi < Integer.MAX_VALUE && rangeSize(other.hi + 1, Integer.MAX_VALUE) > 0) {
+				addRange(ranges, other.hi + 1, Integer.MAX_VALUE);
+			}
+		}
+		int[] res = new int[ranges.size()];
+		for (int i = 0; i < res.length; i++)
+			res[i] = ranges.get(i);
+		return res;
+	}
+
+	private void diffSummaryRange(HashSummary other, int slot, int lo, int hi, List<Integer> ranges) {
+		int mine = rangeSize(lo, hi);
+		long theirs = other.sizes[slot];
+		if (mine == theirs && (mine == 0 || rangeHash(lo, hi) == other.hashes[slot])) {
+			return;
+		}
+		if (mine == 0 || theirs == 0 || 2 * slot >= other.sizes.length || lo == hi) {
+			addRange(ranges, lo, hi);
+			return;
+		}
+		int mid = HashSummary.mid(lo, hi);
+		diffSummaryRange(other, 2 * slot, lo, mid, ranges);
+		diffSummaryRange(other, 2 * slot + 1, mid + 1, hi, ranges);
+	}
+
+	// appends [lo, hi] to a sorted { lo0, hi0, ... } list, merging it into the last range if adjacent
+	private static void addRange(List<Integer> ranges, int lo, int hi) {
+		int last = ranges.size() - 1;
+		if (last > 0 && (long) ranges.get(last) + 1 == lo) {
+			ranges.set(last, hi);
+		} else {
+			ranges.add(lo);
+			ranges.add(hi);
+		}
+	}
+
+	/**
+	 * public int[] keysInRange(int lo, int hi)
+	 *
+	 * Returns a sorted array of the keys k in the tree with lo <= k <= hi, in
+	 * O(log n + m) for m keys.
+	 */
+	public int[] keysInRange(int lo, int hi) {
+		int[] res = new int[rangeSize(lo, hi)];
+		if (res.length == 0) {
+			return res;
+		}
+		IWAVLNode node = selectNodeDown(root, (int) below(lo)[0] + 1);
+		for (int i = 0; i < res.length; i++) {
+			res[i] = node.getKey();
+			node = node.successor();
+		}
+		return res;
+	}
+
+	/**
+	 * public static class HashSummary
+	 *
+	 * Sizes and hashes of the key ranges of a fixed midpoint split of
+	 * [lo, hi], the smallest and largest key of the summarized tree (lo > hi
+	 * if it was empty). in heap order: range 1 is [lo, hi] and range s is
+	 * halved into 2s (lower half) and 2s + 1. built by hashSummary, sent as
+	 * toArray() and rebuilt on the other side with HashSummary(long[]).
+	 */
+	public static class HashSummary {
+		public static final int MAX_DEPTH = 20;
+		private static final int HEADER = 3; // depth, lo, hi
+		private final int depth;
+		private final int lo;
+		private final int hi;
+		private final long[] sizes; // index 0 unused
+		private final long[] hashes;
+
+		private HashSummary(int depth, int lo, int hi) {
+			if (depth < 0 || depth > MAX_DEPTH) {
+				throw new IllegalArgumentException("depth must be between 0 and " + MAX_DEPTH + ": " + depth);
+			}
+			this.depth = depth;
+			this.lo = lo;
+			this.hi = hi;
+			this.sizes = new long[1 << (depth + 1)];
+			this.hashes = new long[1 << (depth + 1)];
+		}
+
+		// rebuilds a summary from toArray()
+		public HashSummary(long[] serialized) {
+			this(header(serialized, 0), header(serialized, 1), header(serialized, 2));
+			if (serialized.length != HEADER + 2 * (sizes.length - 1)) {
+				throw new IllegalArgumentException("not a summary of depth " + depth + ": " + serialized.length + " longs");
+			}
+			for (int slot = 1; slot < sizes.length; slot++) {
+				sizes[slot] = serialized[HEADER + 2 * (slot - 1)];
+				hashes[slot] = serialized[HEADER + 2 * (slot - 1) + 1];
+			}
+		}
+
+		private static int header(long[] serialized, int i) {
+			if (serialized.length < HEADER || serialized[i] != (int) serialized[i]) {
+				throw new IllegalArgumentException("not a summary: bad header");
+			}
+			return (int) serialized[i];
+		}
+
+		// { depth, lo, hi, size1, hash1, size2, hash2, ... }
+		public long[] toArray() {
+			long[] res = new long[HEADER + 2 * (sizes.length - 1)];
+			res[0] = depth;
+			res[1] = lo;
+			res[2] = hi;
+			for (int slot = 1; slot < sizes.length; slot++) {
+				res[HEADER + 2 * (slot - 1)] = sizes[slot];
+				res[HEADER + 2 * (slot - 1) + 1] = hashes[slot];
+			}
+			return res;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		// last key of the lower half of [lo, hi]
+		private static int mid(int lo, int hi) {
+			return (int) (((long) lo + hi) >> 1);
+		}
+	}
+
+	/**
+	 * public class DiffEntry
+	 *
+	 * One key on which two replicas disagree, with its info on each side.
+	 * isInThis()/isInOther() tell a missing key apart from a null info.
+	 */
+	public class DiffEntry {
+		private final int key;
+		private final boolean inThis;
+		private final String info;
+		private final boolean inOther;
+		private final String otherInfo;
+
+		private DiffEntry(int key, boolean inThis, String info, boolean inOther, String otherInfo) {
+			this.key = key;
+			this.inThis = inThis;
+			this.info = info;
+			this.inOther = inOther;
+			this.otherInfo = otherInfo;
+		}
+
+		public int getKey() {
+			return key;
+		}
+
+		public boolean isInThis() {
+			return inThis;
+		}
+
+		public String getInfo() { // info in the tree diff was called on (null if missing there)
+			return info;
+		}
+
+		public boolean isInOther() {
+			return inOther;
+		}
+
+		public String getOtherInfo() { // info in the other replica (null if missing there)
+			return otherInfo;
+		}
+	}
+
+	/**
+	 * public class SearchCache
+	 *
+	 * A bounded map from key to tree node, used by search(int k) to skip the
+	 * descent for hot keys. Open addressing with linear probing over primitive
+	 * int keys; deletions shift the following run back instead of leaving
+	 * tombstones. When full, the CLOCK hand evicts the first entry whose
+	 * reference bit is clear, clearing set bits as it passes.
+	 *
+	 * Entries point at nodes rather than values, so a value change is seen
+	 * without invalidation. The tree must remove a key whenever its node is
+	 * deleted or stops holding that key (swapWithSuccessor).
+	 */
+	public class SearchCache {
+		private static final int MAX_CAPACITY = 1 << 29; // the table is up to twice as large and must stay a power of two
+		private final int capacity;
+		private final int mask;
+		private final int[] keys;
+		private final IWAVLNode[] nodes; // null marks an empty slot
+		private final boolean[] referenced;
+		private int count;
+		private int hand;
+		private long hits;
+		private long misses;
+		private long evictions;
+
+		private SearchCache(int capacity) {
+			if (capacity <= 0) {
+				throw new IllegalArgumentException("capacity must be positive: " + capacity);
+			}
+			if (capacity > MAX_CAPACITY) {
+				throw new IllegalArgumentException("capacity must be at most " + MAX_CAPACITY + ": " + capacity);
+			}
+			int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1; // power of two, load <= 1/2
+			this.capacity = capacity;
+			this.mask = tableSize - 1;
+			this.keys = new int[tableSize];
+			this.nodes = new IWAVLNode[tableSize];
+			this.referenced = new boolean[tableSize];
+		}
+
+		private int home(int k) {
+			int h = k * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private int indexOf(int k) {
+			int i = home(k);
+			while (nodes[i] != null) {
+				if (keys[i] == k) {
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		private IWAVLNode get(int k) {
+			int i = indexOf(k);
+			if (i < 0) {
+				misses++;
+				return null;
+			}
+			hits++;
+			referenced[i] = true;
+			return nodes[i];
+		}
+
+		private void put(int k, IWAVLNode node) {
+			int i = indexOf(k);
+			if (i >= 0) {
+				nodes[i] = node;
+				referenced[i] = true;
+				return;
+			}
+			if (count == capacity) {
+				evict();
+			}
+			i = home(k);
+			while (nodes[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = k;
+			nodes[i] = node;
+			referenced[i] = false; // has to be hit once more before it survives a sweep
+			count++;
+		}
+
+		private void remove(int k) {
+			int i = indexOf(k);
+			if (i >= 0) {
+				removeAt(i);
+			}
+		}
+
+		private void evict() {
+			while (true) {
+				if (nodes[hand] != null) {
+					if (!referenced[hand]) {
+						removeAt(hand); // an entry shifted into this slot is looked at next
+						evictions++;
+						return;
+					}
+					referenced[hand] = false;
+				}
+				hand = (hand + 1) & mask;
+			}
+		}
+
+		// empties slot i and moves back later entries of the run that can no longer be reached
+		private void removeAt(int i) {
+			nodes[i] = null;
+			referenced[i] = false;
+			count--;
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (nodes[j] == null) {
+					return;
+				}
+				int h = home(keys[j]);
+				// entry j may move to i only if its home is not cyclically in (i, j]
+				boolean reachable = i <= j ? (i < h && h <= j) : (i < h || h <= j);
+				if (!reachable) {
+					keys[i] = keys[j];
+					nodes[i] = nodes[j];
+					referenced[i] = referenced[j];
+					nodes[j] = null;
+					referenced[j] = false;
+					i = j;
+				}
+			}
+		}
+
+		public int size() {
+			return count;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public double getHitRate() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0.0 : (double) hits / lookups;
+		}
+	}
+
+	/**
+	 * public interface IHashReplica
+	 *
+	 * The queries diff(IHashReplica) sends to the other side. A WAVLTree
+	 * answers them through asReplica(); a remote replica only has to forward
+	 * them, so a sync exchanges O(d log n) small messages for d differences
+	 * instead of whole key and info dumps.
+	 */
+	public interface IHashReplica {
+		public int rangeSize(int lo, int hi); // number of keys in [lo, hi]
+		public long rangeHash(int lo, int hi); // sum of entryHash over the entries in [lo, hi]
+		public int medianKey(int lo, int hi); // median key in [lo, hi], only asked when the range is not empty
+		public String search(int k); // info of key k, only asked for keys the replica holds
+	}
+
 	/**
 	 * public interface IWAVLNode ! Do not delete or modify this - otherwise all
 	 * tests will fail !
@@ -505,11 +1329,16 @@ public class WAVLTree {
 		// functions we've added
 		public int setKey(int newKey);
 		public String setValue(String newValue);
+		public void setEntry(int newKey, String newValue);// sets key and value with a single hash update
 		public IWAVLNode getParent();
 		public void setRight(IWAVLNode NewRight);// sets Right
 		public void setLeft(IWAVLNode NewLeft);// sets Left
 		public void setParent(IWAVLNode NewParent);// sets Parent
 		public void setSubtreeSize(int NewSize);// sets size
+		public long getSubtreeHash();// sum of entry hashes in this subtree (0 for virtual nodes, stale while hashing is off)
+		public void fixSubtreeHash();// recomputes the hash from the children, if the tree keeps hashes
+		public long getEntryHash();// entryHash(key, info) of this node alone, kept like getSubtreeHash
+		public void fixEntryHash();// recomputes getEntryHash, if the tree keeps hashes
 		public void promote();// rank+1
 		public void demote();// rank-1
 		public int getNodeType();		// 0-leaf ; 1-Unary Left (has only left) ; 2-Unary Right (has only right) ; 3-binary ;
@@ -536,6 +1365,8 @@ public class WAVLTree {
 
 		private boolean isReal;
 		private int size;
+		private long hash;
+		private long ownHash; // entryHash(key, info), only recomputed when one of them changes
 		private IWAVLNode parent;
 		private IWAVLNode right;
 		private IWAVLNode left;
@@ -557,6 +1388,8 @@ public class WAVLTree {
 			this.right = new WAVLNode();
 			this.left = new WAVLNode();
 			this.size = 1;
+			this.fixEntryHash();
+			this.fixSubtreeHash();
 		}
 
 		public int getKey() {
@@ -569,14 +1402,35 @@ public class WAVLTree {
 
 		public int setKey(int newKey) {
 			this.key = newKey;
+			this.fixHashesUp();
 			return this.key;
 		}
 
 		public String setValue(String newValue) {
 			this.info = newValue;
+			this.fixHashesUp();
 			return this.info;
 		}
 
+		public void setEntry(int newKey, String newValue) {
+			this.key = newKey;
+			this.info = newValue;
+			this.fixHashesUp();
+		}
+
+		// the entry changed, so its hash and the subtree hashes of it and all its ancestors did too
+		private void fixHashesUp() {
+			if (!hashing) {
+				return;
+			}
+			this.fixEntryHash();
+			IWAVLNode node = this;
+			while (node != null && node.isRealNode()) {
+				node.fixSubtreeHash();
+				node = node.getParent();
+			}
+		}
+
 		public IWAVLNode getLeft() {
 			return this.left;
 		}
@@ -599,6 +1453,26 @@ public class WAVLTree {
 			this.size = newSize;
 		}
 
+		public long getSubtreeHash() {
+			return this.hash;
+		}
+
+		public void fixSubtreeHash() {
+			if (hashing && this.isRealNode()) {
+				this.hash = this.left.getSubtreeHash() + this.ownHash + this.right.getSubtreeHash();
+			}
+		}
+
+		public long getEntryHash() {
+			return this.ownHash;
+		}
+
+		public void fixEntryHash() {
+			if (hashing && this.isRealNode()) {
+				this.ownHash = entryHash(this.key, this.info);
+			}
+		}
+
 		public void setRight(IWAVLNode NewRight) {
 			this.right = NewRight;
 			if (NewRight.isRealNode() && NewRight.getParent() != this) {
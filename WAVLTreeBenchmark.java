@@ -0,0 +1,167 @@
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *
+ * WAVLTreeBenchmark
+ *
+ * Times WAVLTree.pollMin() against TreeMap.pollFirstEntry() and
+ * PriorityQueue.poll() on scheduler-like workloads. run with
+ * java WAVLTreeBenchmark [n] [rounds]
+ *
+ * hold: n pending events; each step polls the earliest and schedules a new
+ * one at (polled time + random delay), the classic hold model.
+ * drain: n random deadlines are inserted, then all of them are polled.
+ *
+ * the key streams are computed once and replayed on every structure, so
+ * all three see exactly the same operations. the times include the inserts
+ * of the workload and are divided by the number of polls. the first rounds
+ * are warm up.
+ */
+
+public class WAVLTreeBenchmark {
+	private static final String INFO = "task";
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int[][] hold = holdKeys(n, 4 * n, new Random(1));
+		int[] drain = distinctKeys(n, new Random(2));
+		long sink = 0;
+		for (int round = 1; round <= rounds; round++) {
+			long t0 = System.nanoTime();
+			sink += holdWAVL(hold);
+			long t1 = System.nanoTime();
+			sink += holdTreeMap(hold);
+			long t2 = System.nanoTime();
+			sink += holdPriorityQueue(hold);
+			long t3 = System.nanoTime();
+			report("hold", round, hold[1].length, t1 - t0, t2 - t1, t3 - t2);
+
+			t0 = System.nanoTime();
+			sink += drainWAVL(drain);
+			t1 = System.nanoTime();
+			sink += drainTreeMap(drain);
+			t2 = System.nanoTime();
+			sink += drainPriorityQueue(drain);
+			t3 = System.nanoTime();
+			report("drain", round, drain.length, t1 - t0, t2 - t1, t3 - t2);
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	private static void report(String workload, int round, int ops, long wavl, long treeMap, long queue) {
+		System.out.printf("%-5s round %d: WAVLTree %6.1f ns/poll, TreeMap %6.1f ns/poll, PriorityQueue %6.1f ns/poll%n",
+				workload, round, (double) wavl / ops, (double) treeMap / ops, (double) queue / ops);
+	}
+
+	// returns { initial keys, keys inserted after each poll }, all distinct among the pending ones
+	private static int[][] holdKeys(int n, int steps, Random random) {
+		int[] initial = distinctKeys(n, random);
+		int[] later = new int[steps];
+		TreeMap<Integer, String> pending = new TreeMap<>();
+		for (int k : initial) {
+			pending.put(k, INFO);
+		}
+		for (int i = 0; i < steps; i++) {
+			int now = pending.pollFirstEntry().getKey();
+			int k = now + 1 + random.nextInt(2 * n);
+			while (pending.containsKey(k)) {
+				k++;
+			}
+			pending.put(k, INFO);
+			later[i] = k;
+		}
+		return new int[][] { initial, later };
+	}
+
+	private static int[] distinctKeys(int n, Random random) {
+		TreeMap<Integer, String> seen = new TreeMap<>();
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			int k = random.nextInt(Integer.MAX_VALUE / 2);
+			while (seen.containsKey(k)) {
+				k = random.nextInt(Integer.MAX_VALUE / 2);
+			}
+			seen.put(k, INFO);
+			keys[i] = k;
+		}
+		return keys;
+	}
+
+	private static long holdWAVL(int[][] keys) {
+		WAVLTree tree = new WAVLTree();
+		for (int k : keys[0]) {
+			tree.insert(k, INFO);
+		}
+		long sink = 0;
+		for (int k : keys[1]) {
+			sink += tree.pollMin().length();
+			tree.insert(k, INFO);
+		}
+		return sink;
+	}
+
+	private static long holdTreeMap(int[][] keys) {
+		TreeMap<Integer, String> map = new TreeMap<>();
+		for (int k : keys[0]) {
+			map.put(k, INFO);
+		}
+		long sink = 0;
+		for (int k : keys[1]) {
+			sink += map.pollFirstEntry().getValue().length();
+			map.put(k, INFO);
+		}
+		return sink;
+	}
+
+	private static long holdPriorityQueue(int[][] keys) {
+		PriorityQueue<Integer> queue = new PriorityQueue<>();
+		for (int k : keys[0]) {
+			queue.add(k);
+		}
+		long sink = 0;
+		for (int k : keys[1]) {
+			sink += queue.poll() & 1;
+			queue.add(k);
+		}
+		return sink;
+	}
+
+	private static long drainWAVL(int[] keys) {
+		WAVLTree tree = new WAVLTree();
+		for (int k : keys) {
+			tree.insert(k, INFO);
+		}
+		long sink = 0;
+		while (!tree.empty()) {
+			sink += tree.pollMin().length();
+		}
+		return sink;
+	}
+
+	private static long drainTreeMap(int[] keys) {
+		TreeMap<Integer, String> map = new TreeMap<>();
+		for (int k : keys) {
+			map.put(k, INFO);
+		}
+		long sink = 0;
+		while (!map.isEmpty()) {
+			sink += map.pollFirstEntry().getValue().length();
+		}
+		return sink;
+	}
+
+	private static long drainPriorityQueue(int[] keys) {
+		PriorityQueue<Integer> queue = new PriorityQueue<>();
+		for (int k : keys) {
+			queue.add(k);
+		}
+		long sink = 0;
+		while (!queue.isEmpty()) {
+			sink += queue.poll() & 1;
+		}
+		return sink;
+	}
+}